@@ -1,6 +1,8 @@
 package bank;
 
 import java.net.Socket;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.InputStream;
 import java.io.IOException;
@@ -8,6 +10,8 @@ import java.io.IOException;
 /* Simple command line client to send requests to a server.
  * Compile:    javac Client
  * Show usage: java  Client
+ *
+ * For use from java code see bank.socket.SocketClient.
  **/
 public class Client {
 
@@ -28,14 +32,15 @@ public class Client {
             return;
         }
 
-        OutputStream out = s.getOutputStream();
-        InputStream in = s.getInputStream();
+        OutputStream out = new BufferedOutputStream(s.getOutputStream());
+        InputStream in = new BufferedInputStream(s.getInputStream());
 
         // write request
         for (int i = 2; i < args.length; i++) {
             writeString(out, args[i] + "\n");
         }
         writeString(out, "\n");
+        out.flush();
 
         // read response
         StringBuilder sb = new StringBuilder();
@@ -60,7 +65,13 @@ public class Client {
                 "    Close Account:       4 account_number\n" +
                 "    Transfer:            5 from_account_number to_accoutn_number amount\n" +
                 "    Deposit:             6 account_number amount\n" +
-                "    Withdraw:            7 account_number amount"
+                "    Withdraw:            7 account_number amount\n" +
+                "    Statement:           8 account_number mode(0=sequence,1=time) from to\n" +
+                "    Report:              9\n" +
+                "    Export:              10\n" +
+                "    Interest:            11 rate\n" +
+                "    Fee:                 12 amount\n" +
+                "    Import:              13 owner [owner ...]"
                 );
     }
 
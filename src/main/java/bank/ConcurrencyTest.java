@@ -1,14 +1,14 @@
 package bank;
 
+import bank.socket.SocketClient;
+
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.InputStream;
-import java.net.Socket;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ConcurrencyTest {
 
@@ -22,85 +22,37 @@ public class ConcurrencyTest {
     private static final int POOL_SIZE = 10;
     private static final int REQUESTS_NUM = 1_000_000;
 
-    private final ExecutorService pool;
+    private final SocketClient client;
 
     public static void main(String[] args) throws IOException, InterruptedException {
         new ConcurrencyTest();
     }
 
     ConcurrencyTest() throws IOException, InterruptedException {
-        pool = Executors.newFixedThreadPool(POOL_SIZE);
+        client = new SocketClient(IP, PORT, POOL_SIZE);
         long start = System.currentTimeMillis();
         testConcurrentDepositWithdraw();
         long stop = System.currentTimeMillis();
         System.out.println("duration: " + (stop-start)/1000);
+        client.close();
     }
 
-    private void runRequestsConcurrently(String[] requests) throws IOException, InterruptedException {
-        int step = requests.length/POOL_SIZE;
-
-        for (int i = 0; i < requests.length; i += step) {
-            if (i + step >= requests.length) {
-                pool.execute(new RequestDispatcher(requests, i, requests.length));
-            } else {
-                pool.execute(new RequestDispatcher(requests, i, i + step));
-            }
-            System.out.println("added task to pool");
-        }
-        pool.shutdown();
-        pool.awaitTermination(180, TimeUnit.SECONDS);
-    }
-
-    public static class RequestDispatcher implements Runnable {
-
-        private final String[] requests;
-        private final int begin;
-        private final int end;
-
-        public RequestDispatcher(String[] requests, int begin, int end) {
-            this.requests = requests;
-            this.begin = begin;
-            this.end = end;
-        }
-
-        @Override
-        public void run() {
-            try {
-                Socket socket = new Socket(IP, PORT);
-                OutputStream out = socket.getOutputStream();
-                InputStream in = socket.getInputStream();
-                for (int i = begin; i < end; i++) {
-                    writeString(out, requests[i]);
-                    discardResponse(in);
-                }
-                socket.close();
-            }
-            catch (IOException e) { e.printStackTrace(); }
+    /* all requests are pipelined over the client's POOL_SIZE connections */
+    private void runRequestsConcurrently(String[][] requests) throws InterruptedException {
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            responses[i] = client.send(requests[i]);
         }
-
-        private static void discardResponse(InputStream in) throws IOException {
-            int buf;
-            boolean lineBreak = false;
-            while ((buf = in.read()) != -1) {
-                if ((char) buf == '\n') {
-                    if (lineBreak) break;
-                    lineBreak = true;
-                } else {
-                    lineBreak = false;
-                }
-            }
-        }
-
-        private static void writeString(OutputStream out, String s) throws IOException {
-            for (int i = 0; i < s.length(); i++) {
-                out.write(s.charAt(i));
-            }
+        try {
+            CompletableFuture.allOf(responses).get(180, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
         }
     }
 
-    private void testConcurrentDepositWithdraw() throws IOException, InterruptedException {
+    private void testConcurrentDepositWithdraw() throws InterruptedException {
         double amount = 1;
-        String[] requests = new String[REQUESTS_NUM];
+        String[][] requests = new String[REQUESTS_NUM][];
         int i = 0;
         for (; i < REQUESTS_NUM/2; i++) {
             requests[i] = actionDeposit(ACCOUNT_NUMBER, amount);
@@ -115,17 +67,17 @@ public class ConcurrencyTest {
         runRequestsConcurrently(requests);
     }
 
-    private static String actionDeposit(String accountNumber, double amount) {
-        return "6\n" + accountNumber + "\n" + amount + "\n\n";
+    private static String[] actionDeposit(String accountNumber, double amount) {
+        return new String[]{"6", accountNumber, String.valueOf(amount)};
     }
 
-    private static String actionWithdraw(String accountNumber, double amount) {
-        return "7\n" + accountNumber + "\n" + amount + "\n\n";
+    private static String[] actionWithdraw(String accountNumber, double amount) {
+        return new String[]{"7", accountNumber, String.valueOf(amount)};
     }
 
-    private void shuffleArray(String[] requests) {
+    private void shuffleArray(String[][] requests) {
         Random rnd = ThreadLocalRandom.current();
-        String r;
+        String[] r;
         for (int i = requests.length - 1; i > 0; i--)
         {
             int index = rnd.nextInt(i + 1);
@@ -3,10 +3,12 @@ package bank;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.InetSocketAddress;
+import java.io.BufferedInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.lang.StringBuilder;
 import java.lang.NumberFormatException;
 import java.util.List;
@@ -15,15 +17,32 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.lang.Runnable;
 
 public class Server {
 
     private static final int DEFAULT_PORT = 5001;
 
+    /* limits memory usage, can be changed with the second program argument */
+    private static final int DEFAULT_MAX_ACCOUNTS = 500;
+
     /* error responses according to protocol specification (see readme.md#actions) */
     private static final String[] ERROR_ACCOUNT_DOES_NOT_EXIST = {"1", "Account does not exist."};
     private static final String[] ERROR_ACCOUNT_COULD_NOT_BE_CREATED = {"2", "Account could not be created."};
@@ -40,16 +59,25 @@ public class Server {
     /* pool size for thread pool which handles requests */
     private static final int POOL_SIZE = 50;
 
+    /* max number of encoded Get Account responses kept in memory (see ResponseCache) */
+    private static final int RESPONSE_CACHE_SIZE = 100;
+
+    /* interval in seconds for logging the response cache metrics */
+    private static final int RESPONSE_CACHE_STATS_INTERVAL = 60;
+
+    /* statement query modes (see statement()) */
+    private static final int STATEMENT_BY_SEQUENCE = 0;
+    private static final int STATEMENT_BY_TIME = 1;
+
+    /* number of owners which are read before they are handed to the bulk import */
+    private static final int IMPORT_CHUNK_SIZE = 1000;
+
     /* states for request reading algorithm (see readRequest()) */
     private static final int STATE_READ = 0;
     private static final int STATE_LINE_BREAK = 1;
 
-    /*
-     * Bank instance for manipulating bank data. The current implementation stores all data
-     * inside the bank instance. I.e. alla data will be lost upon program termination.
-     * This could be changed with another bank implementaion.
-     */
-    private static final Bank BANK = new Bank();
+    /* encoded Get Account responses, shared by all connections */
+    private static final ResponseCache RESPONSE_CACHE = new ResponseCache(RESPONSE_CACHE_SIZE);
 
     private static int requests_processed = 0;
     private static final Object LOCK = new Object();
@@ -59,15 +87,34 @@ public class Server {
         if (args.length > 0) {
             port = Integer.parseInt(args[0]);
         }
+        int max_accounts = DEFAULT_MAX_ACCOUNTS;
+        if (args.length > 1) {
+            max_accounts = Integer.parseInt(args[1]);
+        }
+
+        /*
+         * Bank instance for manipulating bank data. The current implementation stores all data
+         * inside the bank instance. I.e. alla data will be lost upon program termination.
+         * This could be changed with another bank implementaion.
+         */
+        Bank bank = new Bank(max_accounts);
 
         ExecutorService pool = Executors.newFixedThreadPool(POOL_SIZE);
+        ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "response-cache-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        stats.scheduleAtFixedRate(() -> System.out.println(RESPONSE_CACHE),
+                RESPONSE_CACHE_STATS_INTERVAL, RESPONSE_CACHE_STATS_INTERVAL, TimeUnit.SECONDS);
         ServerSocket server = new ServerSocket(port);
         System.out.println(String.format("Started server on port %s. (You can change this by passing the port as a program argument.)", port));
+        System.out.println(String.format("Accepting up to %s accounts. (You can change this by passing the limit as second program argument.)", max_accounts));
         System.out.println("listening...");
 
         try {
             while (true) {
-                pool.execute(new ConnectionHandler(server.accept(), BANK));
+                pool.execute(new ConnectionHandler(server.accept(), bank, RESPONSE_CACHE));
             }
         } catch (IOException e) {
             pool.shutdown();
@@ -79,7 +126,7 @@ public class Server {
         System.out.println("    Hypothetical bank-server (see github.com/mikenoethiger/bank-server).");
         System.out.println("    Starts to listen for connections on specified port.");
         System.out.println("USAGE");
-        System.out.println("    java Server <port>");
+        System.out.println("    java Server <port> [max_accounts]");
     }
 
     /* Handles one connection, i.e. one client. Instantiate multiple
@@ -96,10 +143,12 @@ public class Server {
 
         private final Socket socket;
         private final Bank bank; /* this is where the accounts are stored (i.e. in memory) */
+        private final ResponseCache cache; /* encoded Get Account responses */
 
-        ConnectionHandler(Socket socket, Bank bank) throws IOException {
+        ConnectionHandler(Socket socket, Bank bank, ResponseCache cache) throws IOException {
             this.socket = socket;
             this.bank = bank;
+            this.cache = cache;
         }
 
         public void run() {
@@ -109,28 +158,48 @@ public class Server {
             InetSocketAddress remote;
 
             try {
-                in = socket.getInputStream();
+                in = new BufferedInputStream(socket.getInputStream());
                 out = new DataOutputStream(socket.getOutputStream());
                 out2 = socket.getOutputStream();
                 remote = (InetSocketAddress) socket.getRemoteSocketAddress();
                 System.out.println("connected to " + remote.getHostName() + "...");
 
-                String[] request = readRequest(in);
-
-                while (request.length > 0) {
-                    System.out.println("request: " + Arrays.toString(request));
-                    String[] response = processRequest(request);
+                String first_line = readLine(in);
+
+                // only the end of the stream closes the connection, an empty action is a bad request
+                while (first_line != null) {
+                    int action = parseAction(first_line);
+                    if (action == 13) {
+                        // imports are streamed, i.e. owners are imported while being read
+                        System.out.println("request: import");
+                        String[] response = importAccounts(in);
+                        System.out.println("response: " + Arrays.toString(response));
+                        out2.write(encodeResponse(response));
+                    } else {
+                        String[] request = readRequest(first_line, in);
+                        System.out.println("request: " + Arrays.toString(request));
+                        switch (action) {
+                            case 2:
+                                // Get Account is answered from the response cache, the bytes are written as they are
+                                out2.write(getAccountEncoded(request));
+                                System.out.println("response: get account");
+                                break;
+                            case 8:
+                                // statements are streamed, i.e. they are written while being read from the journal
+                                int entries = statement(request, out2);
+                                System.out.println("response: statement with " + entries + " entries");
+                                break;
+                            default:
+                                String[] response = processRequest(action, request);
+                                System.out.println("response: " + Arrays.toString(response));
+                                out2.write(encodeResponse(response));
+                        }
+                    }
                     synchronized (Server.LOCK) {
                         Server.requests_processed++;
                     }
                     // System.out.println(Server.requests_processed);
-                    System.out.println("response: " + Arrays.toString(response));
-                    for (String line : response) {
-                        writeString(out2, line);
-                        writeString(out2, "\n");
-                    }
-                    writeString(out2, "\n");
-                    request = readRequest(in);
+                    first_line = readLine(in);
                 }
                 System.out.println("disconnected from " + remote.getHostName() + "...");
                 out.close();
@@ -146,28 +215,60 @@ public class Server {
         }
 
         /**
-         * Write a string to out.
+         * Encode a response according to the protocol, i.e. each line
+         * followed by a line break and a terminating line break.
          * <p>
          * Writes each character as 1 byte as opposed to
          * {@link DataOutputStream#writeChars(String)}
          * which writes each character as 2 bytes.
          * </p>
          *
-         * @param out stream to write to
-         * @param s   string to write
-         * @throws IOException
+         * @param response lines to encode
+         * @return encoded response
          */
-        private static void writeString(OutputStream out, String s) throws IOException {
-            for (int i = 0; i < s.length(); i++) {
-                out.write(s.charAt(i));
+        private static byte[] encodeResponse(String[] response) {
+            int length = 1;
+            for (String line : response) {
+                length += line.length() + 1;
+            }
+            byte[] bytes = new byte[length];
+            int pos = 0;
+            for (String line : response) {
+                for (int i = 0; i < line.length(); i++) {
+                    bytes[pos++] = (byte) line.charAt(i);
+                }
+                bytes[pos++] = DELIMITER;
+            }
+            bytes[pos] = DELIMITER;
+            return bytes;
+        }
+
+        private static void writeLines(OutputStream out, StringBuilder sb) throws IOException {
+            byte[] bytes = new byte[sb.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) sb.charAt(i);
             }
+            out.write(bytes);
         }
 
-        private static String[] readRequest(InputStream in) throws IOException {
+        /* reads one line without the delimiter, returns null if the stream ended before the delimiter */
+        private static String readLine(InputStream in) throws IOException {
+            int buf;
+            StringBuilder sb = new StringBuilder();
+            while ((buf = in.read()) != -1) {
+                if (buf == DELIMITER) return sb.toString();
+                sb.append((char) buf);
+            }
+            return null;
+        }
+
+        /* reads the rest of a request whose first line (the action) has already been read */
+        private static String[] readRequest(String first_line, InputStream in) throws IOException {
             int buf;
             StringBuilder sb = new StringBuilder();
             List<String> request = new ArrayList<>();
-            int state = STATE_READ;
+            request.add(first_line);
+            int state = STATE_LINE_BREAK;
             while ((buf = in.read()) != -1) {
                 if (state == STATE_LINE_BREAK) {
                     // double line break denotes end of request
@@ -192,21 +293,41 @@ public class Server {
             return request_arr;
         }
 
-        private String[] processRequest(String[] request) {
-            if (request.length < 1) return ERROR_BAD_REQUEST;
-
-            int action;
+        /* returns the action of a request or -1 if it is not a number */
+        private static int parseAction(String action) {
             try {
-                action = Integer.parseInt(request[0]);
+                return Integer.parseInt(action);
             } catch (NumberFormatException e) {
-                return ERROR_BAD_REQUEST;
+                return -1;
             }
+        }
+
+        /* Get Account (action 2) answered from the response cache */
+        private byte[] getAccountEncoded(String[] request) {
+            if (request.length < 2) return encodeResponse(ERROR_BAD_REQUEST);
+            String number = request[1];
+            Account a = bank.getAccount(number);
+            if (a == null) return encodeResponse(ERROR_ACCOUNT_DOES_NOT_EXIST);
+            // version is volatile, a hit needs neither the account monitor nor a cache lock
+            byte[] response = cache.get(number, a.getVersion());
+            if (response != null) return response;
+            /* balance, activeness and version must be read together,
+               otherwise a stale response could be cached under a newer version. */
+            String[] lines;
+            long version;
+            synchronized (a) {
+                lines = new String[]{"0", a.getNumber(), a.getOwner(), String.valueOf(a.getBalance()), a.isActive() ? "1" : "0"};
+                version = a.getVersion();
+            }
+            response = encodeResponse(lines);
+            cache.put(a.getNumber(), version, response);
+            return response;
+        }
 
+        private String[] processRequest(int action, String[] request) {
             switch (action) {
                 case 1:
                     return getAccountNumbers(request);
-                case 2:
-                    return getAccount(request);
                 case 3:
                     return createAccount(request);
                 case 4:
@@ -217,6 +338,14 @@ public class Server {
                     return deposit(request);
                 case 7:
                     return withdraw(request);
+                case 9:
+                    return report(request);
+                case 10:
+                    return export(request);
+                case 11:
+                    return accrueInterest(request);
+                case 12:
+                    return chargeFee(request);
                 default:
                     return ERROR_BAD_REQUEST;
             }
@@ -237,13 +366,6 @@ public class Server {
             return response;
         }
 
-        private String[] getAccount(String[] request) {
-            if (request.length < 2) return ERROR_BAD_REQUEST;
-            Account a = bank.getAccount(request[1]);
-            if (a == null) return ERROR_ACCOUNT_DOES_NOT_EXIST;
-            return new String[]{"0", a.getNumber(), a.getOwner(), String.valueOf(a.getBalance()), a.isActive() ? "1" : "0"};
-        }
-
         private String[] createAccount(String[] request) {
             if (request.length < 2) return ERROR_BAD_REQUEST;
             Account account = bank.createAccount(request[1]);
@@ -314,6 +436,157 @@ public class Server {
             return new String[]{"0", String.valueOf(a.getBalance())};
         }
 
+        /* Writes the journal entries of an account within a sequence or time range
+           (both bounds inclusive). The entries are written segment by segment,
+           only the segments covering the requested range are read.
+           Returns the number of written entries. */
+        private int statement(String[] request, OutputStream out) throws IOException {
+            if (request.length < 5) {
+                out.write(encodeResponse(ERROR_BAD_REQUEST));
+                return 0;
+            }
+
+            // parse account
+            Account a = bank.getAccount(request[1]);
+            if (a == null) {
+                out.write(encodeResponse(ERROR_ACCOUNT_DOES_NOT_EXIST));
+                return 0;
+            }
+
+            // parse range
+            int mode;
+            long from;
+            long to;
+            try {
+                mode = Integer.parseInt(request[2]);
+                from = Long.parseLong(request[3]);
+                to = Long.parseLong(request[4]);
+            } catch (NumberFormatException e) {
+                out.write(encodeResponse(ERROR_BAD_REQUEST));
+                return 0;
+            }
+            if (mode != STATEMENT_BY_SEQUENCE && mode != STATEMENT_BY_TIME) {
+                out.write(encodeResponse(ERROR_BAD_REQUEST));
+                return 0;
+            }
+            if (from > to) {
+                out.write(encodeResponse(ERROR_ILLEGAL_ARGUMENT));
+                return 0;
+            }
+
+            Journal.Reader reader = a.journal.reader();
+            long begin;
+            long end;
+            if (mode == STATEMENT_BY_SEQUENCE) {
+                begin = reader.indexOfSequence(from);
+                end = to == Long.MAX_VALUE ? reader.size() : reader.indexOfSequence(to + 1);
+            } else {
+                begin = reader.indexOfTime(from);
+                end = to == Long.MAX_VALUE ? reader.size() : reader.indexOfTime(to + 1);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append('0').append(DELIMITER);
+            for (long i = begin; i < end; i++) {
+                sb.append(i + 1).append(DELIMITER)
+                        .append(reader.time(i)).append(DELIMITER)
+                        .append(reader.type(i)).append(DELIMITER)
+                        .append(reader.amount(i)).append(DELIMITER)
+                        .append(reader.balance(i)).append(DELIMITER);
+                if ((i + 1) % Journal.SEGMENT_ENTRIES == 0) {
+                    // segment done, write it out
+                    writeLines(out, sb);
+                    sb.setLength(0);
+                }
+            }
+            sb.append(DELIMITER);
+            writeLines(out, sb);
+            return (int) (end - begin);
+        }
+
+        /* sums up all accounts at one point in time, concurrent transactions don't distort the result */
+        private String[] report(String[] request) {
+            int active = 0;
+            double total = 0;
+            try (Snapshot snapshot = bank.snapshot()) {
+                for (Account.State a : snapshot) {
+                    if (!a.active) continue;
+                    active++;
+                    total += a.balance;
+                }
+                return new String[]{"0", String.valueOf(snapshot.epoch), String.valueOf(active), String.valueOf(total)};
+            }
+        }
+
+        /* lists all accounts (including inactive ones) at one point in time */
+        private String[] export(String[] request) {
+            List<String> response = new ArrayList<>();
+            response.add("0");
+            try (Snapshot snapshot = bank.snapshot()) {
+                response.add(String.valueOf(snapshot.epoch));
+                for (Account.State a : snapshot) {
+                    response.add(a.number);
+                    response.add(a.owner);
+                    response.add(String.valueOf(a.balance));
+                    response.add(a.active ? "1" : "0");
+                }
+            }
+            return response.toArray(new String[0]);
+        }
+
+        private String[] accrueInterest(String[] request) {
+            if (request.length < 2) return ERROR_BAD_REQUEST;
+
+            // parse rate
+            double rate;
+            try {
+                rate = Double.parseDouble(request[1]);
+            } catch (NumberFormatException e) {
+                return ERROR_BAD_REQUEST;
+            }
+
+            try {
+                return bank.accrueInterest(rate).toResponse();
+            } catch (IllegalArgumentException e) {
+                return ERROR_ILLEGAL_ARGUMENT;
+            }
+        }
+
+        private String[] chargeFee(String[] request) {
+            if (request.length < 2) return ERROR_BAD_REQUEST;
+
+            // parse amount
+            double amount;
+            try {
+                amount = Double.parseDouble(request[1]);
+            } catch (NumberFormatException e) {
+                return ERROR_BAD_REQUEST;
+            }
+
+            try {
+                return bank.chargeFee(amount).toResponse();
+            } catch (IllegalArgumentException e) {
+                return ERROR_ILLEGAL_ARGUMENT;
+            }
+        }
+
+        /* Reads the owners (one per line, until an empty line) and hands
+           them to the bulk import in chunks while reading goes on. */
+        private String[] importAccounts(InputStream in) throws IOException {
+            Bank.BulkImport bulk_import = bank.importAccounts();
+            List<String> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+            String owner;
+            while ((owner = readLine(in)) != null && !owner.isEmpty()) {
+                chunk.add(owner);
+                if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                    bulk_import.add(chunk.toArray(new String[0]));
+                    chunk.clear();
+                }
+            }
+            bulk_import.add(chunk.toArray(new String[0]));
+            return bulk_import.finish().toResponse();
+        }
+
         private String[] withdraw(String[] request) {
             if (request.length < 3) return ERROR_BAD_REQUEST;
 
@@ -345,14 +618,22 @@ public class Server {
 
     public static class Bank {
 
-        private static final int MAX_ACCOUNTS = 500;
+        /* bulk operations run in their own pool, separate from the request handling threads */
+        private static final ForkJoinPool BULK_POOL = new ForkJoinPool();
 
-        private static int accounts_num = 0;
-        private final Object accounts_num_lock = new Object();
+        private final int max_accounts;
+        private final AtomicInteger accounts_num = new AtomicInteger();
 
         private final Object transfer_lock = new Object();
 
-        private final Map<String, Account> accounts = new HashMap<>();
+        /* concurrent map, snapshots iterate the accounts while new ones are added */
+        private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+        private final Epochs epochs = new Epochs();
+
+        public Bank(int max_accounts) {
+            this.max_accounts = max_accounts;
+        }
 
         public Set<String> getAccountNumbers() {
             return accounts.values().stream().filter(Account::isActive).map(Account::getNumber).collect(Collectors.toSet());
@@ -360,12 +641,17 @@ public class Server {
 
         /* thread safe */
         public Account createAccount(String owner) {
-            // limit memory usage
-            if (accounts_num > MAX_ACCOUNTS) return null;
-            Account a = new Account(owner);
+            // limit memory usage, check and increment must be atomic (bulk imports create accounts in parallel)
+            if (accounts_num.getAndIncrement() >= max_accounts) {
+                accounts_num.decrementAndGet();
+                return null;
+            }
+            Account a = new Account(owner, epochs);
+            /* put before commit, a snapshot which contains the
+               account's first epoch will thus find it in the map */
             accounts.put(a.number, a);
-            synchronized (accounts_num_lock) {
-                accounts_num++;
+            synchronized (a) {
+                epochs.commit(a);
             }
             return a;
         }
@@ -401,15 +687,105 @@ public class Server {
             synchronized (transfer_lock) {
                 if (!a.isActive()) return false;
                 if (a.balance > 0) return false;
-                a.makeInactive();
+                synchronized (a) {
+                    a.makeInactive();
+                    epochs.commit(a);
+                }
             }
             return true;
         }
 
+        /* Pins the current epoch. The returned snapshot must be closed,
+           otherwise old account states can't be reclaimed. */
+        public Snapshot snapshot() {
+            return new Snapshot(epochs, accounts.values());
+        }
+
         public Account getAccount(String number) {
             return accounts.get(number);
         }
 
+        /* thread safe; deposits balance * rate on every active account with a positive balance */
+        public BulkProgress accrueInterest(double rate) {
+            if (!(rate >= 0) || Double.isInfinite(rate)) throw new IllegalArgumentException("invalid rate");
+            Account[] all = accounts.values().toArray(new Account[0]);
+            return bulk("interest", all, a -> {
+                synchronized (a) {
+                    if (!a.isActive() || a.balance <= 0) return false;
+                    try {
+                        a.applyDeposit(a.balance * rate, Journal.INTEREST);
+                    } catch (InactiveException e) {
+                        return false;
+                    }
+                    epochs.commit(a);
+                    return true;
+                }
+            });
+        }
+
+        /* thread safe; withdraws amount from every active account, accounts with a lower balance are skipped */
+        public BulkProgress chargeFee(double amount) {
+            if (!(amount >= 0) || Double.isInfinite(amount)) throw new IllegalArgumentException("invalid amount");
+            Account[] all = accounts.values().toArray(new Account[0]);
+            return bulk("fee", all, a -> {
+                synchronized (a) {
+                    if (!a.isActive()) return false;
+                    try {
+                        a.applyWithdraw(amount, Journal.FEE);
+                    } catch (InactiveException | OverdrawException e) {
+                        return false;
+                    }
+                    epochs.commit(a);
+                    return true;
+                }
+            });
+        }
+
+        /* thread safe; starts an import which creates one account per owner,
+           owners for which no account could be created are skipped */
+        public BulkImport importAccounts() {
+            return new BulkImport();
+        }
+
+        private <T> BulkProgress bulk(String name, T[] items, Predicate<T> operation) {
+            BulkProgress progress = new BulkProgress(name, items.length);
+            try {
+                BULK_POOL.invoke(new BulkTask<>(items, 0, items.length, operation, progress));
+            } catch (RuntimeException | Error e) {
+                progress.fail(e);
+            }
+            progress.finish();
+            return progress;
+        }
+
+        /* Import whose owners arrive in chunks; each chunk is processed
+           in parallel as soon as it was added, finish() waits for all. */
+        class BulkImport {
+
+            private final BulkProgress progress = new BulkProgress("import");
+            private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+            void add(String[] owners) {
+                if (owners.length == 0 || progress.failed()) return;
+                progress.addTotal(owners.length);
+                tasks.add(BULK_POOL.submit(new BulkTask<>(owners, 0, owners.length,
+                        owner -> createAccount(owner) != null, progress)));
+            }
+
+            BulkProgress finish() {
+                // join all chunks, even after a failure, the counts must be complete
+                for (ForkJoinTask<?> task : tasks) {
+                    try {
+                        task.join();
+                    } catch (RuntimeException | Error e) {
+                        progress.fail(e);
+                    }
+                }
+                progress.finish();
+                return progress;
+            }
+        }
+
         /* thread safe */
         public void transfer(Account from, Account to, double amount)
                 throws InactiveException, OverdrawException {
@@ -417,8 +793,18 @@ public class Server {
             synchronized (transfer_lock) {
                 if (!from.isActive() || !to.isActive()) throw new InactiveException();
                 if (from.getBalance() < amount) throw new OverdrawException();
-                from.withdraw(amount);
-                to.deposit(amount);
+                /* both legs are committed with the same epoch,
+                   i.e. a snapshot contains either both or none of them */
+                synchronized (from) {
+                    synchronized (to) {
+                        // reserve both journals first, the transfer must not stop after the first leg
+                        from.journal.reserve();
+                        to.journal.reserve();
+                        from.applyWithdraw(amount, Journal.TRANSFER_OUT);
+                        to.applyDeposit(amount, Journal.TRANSFER_IN);
+                        epochs.commit(from, to);
+                    }
+                }
             }
         }
 
@@ -433,8 +819,17 @@ public class Server {
         private String owner;
         private double balance;
         private boolean active = true;
-
-        private Account(String owner) {
+        /* every change of balance is recorded here */
+        private final Journal journal = new Journal();
+        /* incremented on every change of balance or activeness (see ResponseCache),
+           only written while holding the monitor of this account */
+        private volatile long version = 0;
+        /* committed states, newest first (see Epochs) */
+        private volatile State state;
+        private final Epochs epochs;
+
+        private Account(String owner, Epochs epochs) {
+            this.epochs = epochs;
             this.owner = owner;
             synchronized (LOCK) {
                 this.number = IBAN_PREFIX + next_account_number++;
@@ -458,21 +853,573 @@ public class Server {
             return active;
         }
 
+        public long getVersion() {
+            return version;
+        }
+
         public synchronized void deposit(double amount) throws InactiveException {
+            applyDeposit(amount, Journal.DEPOSIT);
+            epochs.commit(this);
+        }
+
+        public synchronized void withdraw(double amount) throws InactiveException, OverdrawException {
+            applyWithdraw(amount, Journal.WITHDRAW);
+            epochs.commit(this);
+        }
+
+        /* Changes the balance without committing it (see Epochs). Caller must hold
+           the monitor of this account. type denotes the kind of journal entry,
+           e.g. Journal.TRANSFER_IN */
+        void applyDeposit(double amount, int type) throws InactiveException {
             if (!isActive()) throw new InactiveException();
             if (amount < 0) throw new IllegalArgumentException("negative amount not allowed");
+            journal.reserve();
             balance += amount;
+            version++;
+            journal.append(type, amount, balance);
         }
 
-        public synchronized void withdraw(double amount) throws InactiveException, OverdrawException {
+        /* Changes the balance without committing it (see Epochs). Caller must hold
+           the monitor of this account. type denotes the kind of journal entry,
+           e.g. Journal.TRANSFER_OUT */
+        void applyWithdraw(double amount, int type) throws InactiveException, OverdrawException {
             if (amount < 0) throw new IllegalArgumentException("negative amount not allowed");
             if (amount > balance) throw new OverdrawException();
             if (!isActive()) throw new InactiveException();
+            journal.reserve();
             balance -= amount;
+            version++;
+            journal.append(type, amount, balance);
         }
 
         synchronized void makeInactive() {
             active = false;
+            version++;
+        }
+
+        /* Adds the current balance and activeness as state of the given epoch and
+           drops states which are older than needed by the oldest pinned epoch.
+           Caller must hold the monitor of this account. */
+        void install(long epoch, long oldest_pinned) {
+            state = new State(epoch, number, owner, balance, active, state);
+            trim(oldest_pinned);
+        }
+
+        /* Drops the states which no snapshot pinning oldest_pinned or a later
+           epoch can see. Caller must hold the monitor of this account. */
+        void trim(long oldest_pinned) {
+            for (State s = state; s != null; s = s.previous) {
+                if (s.epoch <= oldest_pinned) {
+                    s.previous = null;
+                    break;
+                }
+            }
+        }
+
+        /* returns the state at the given epoch or null if the account didn't exist at that time */
+        State stateAt(long epoch) {
+            State s = state;
+            while (s != null && s.epoch > epoch) {
+                s = s.previous;
+            }
+            return s;
+        }
+
+        /* immutable view on an account at a particular epoch */
+        static class State {
+            final long epoch;
+            final String number;
+            final String owner;
+            final double balance;
+            final boolean active;
+            private State previous;
+
+            private State(long epoch, String number, String owner, double balance, boolean active, State previous) {
+                this.epoch = epoch;
+                this.number = number;
+                this.owner = owner;
+                this.balance = balance;
+                this.active = active;
+                this.previous = previous;
+            }
+        }
+    }
+
+    /* Multi version concurrency control for the accounts. Every commit
+       is tagged with the current epoch and the resulting account state is
+       added in front of the account's list of states (see Account.install.)
+       A snapshot pins the current epoch S, advances the epoch to S + 1 and
+       reads, for each account, the newest state not newer than S. Thus
+       reports see all accounts at the same point in time.
+
+       Writers don't lock anything but the committed accounts: a commit
+       registers itself in the in-flight counter of its epoch and
+       unregisters when its states are installed. A snapshot only waits
+       until the commits of its own epoch S are done, commits which start
+       afterwards are tagged S + 1 or later. Only two counters are needed
+       (epoch parity) because snapshots are created one at a time, each
+       waits for the counter of the previous epoch to drain.
+
+       Changes which must become visible together (i.e. the two legs of a
+       transfer) are committed in one call. Commits require the monitors of
+       the committed accounts, therefore a state always reflects the
+       account as it was when the commit happened and the epochs of an
+       account's states never decrease.
+
+       States which are older than needed by the oldest pinned epoch are
+       dropped on the next commit of the account, and for all accounts when
+       the oldest pinned epoch is released (without blocking new snapshots.) */
+    private static class Epochs {
+
+        /* epoch of new commits, only advanced by pin() */
+        private final AtomicLong epoch = new AtomicLong();
+        /* number of commits in progress, indexed by epoch parity */
+        private final AtomicLong[] in_flight = {new AtomicLong(), new AtomicLong()};
+        /* pinned epochs with the number of snapshots pinning them, guarded by itself */
+        private final TreeMap<Long, Integer> pinned = new TreeMap<>();
+        /* snapshots advance the epoch one at a time (see in_flight) */
+        private final Object advance_lock = new Object();
+        /* smallest pinned epoch or Long.MAX_VALUE, only written while holding pinned */
+        private volatile long oldest_pinned = Long.MAX_VALUE;
+
+        /* Caller must hold the monitors of all accounts. */
+        void commit(Account... accounts) {
+            long e;
+            AtomicLong counter;
+            while (true) {
+                e = epoch.get();
+                counter = in_flight[(int) (e & 1)];
+                counter.incrementAndGet();
+                // a snapshot might have advanced the epoch in the meantime, it won't wait for us then
+                if (epoch.get() == e) break;
+                counter.decrementAndGet();
+            }
+            try {
+                /* oldest_pinned is read after registering: a snapshot which pins an
+                   epoch older than e has published it before advancing the epoch */
+                long oldest = oldest_pinned;
+                for (Account a : accounts) {
+                    a.install(e, oldest);
+                }
+            } finally {
+                counter.decrementAndGet();
+            }
+        }
+
+        long pin() {
+            synchronized (advance_lock) {
+                long e;
+                synchronized (pinned) {
+                    e = epoch.get();
+                    pinned.merge(e, 1, Integer::sum);
+                    oldest_pinned = pinned.firstKey();
+                }
+                epoch.set(e + 1);
+                // wait for the commits which are tagged with the pinned epoch, they only install states
+                AtomicLong counter = in_flight[(int) (e & 1)];
+                for (int spins = 0; counter.get() != 0; spins++) {
+                    if (spins < 100) Thread.onSpinWait();
+                    else LockSupport.parkNanos(10_000);
+                }
+                return e;
+            }
+        }
+
+        /* When the oldest pinned epoch is released, the states of all accounts are trimmed. */
+        void unpin(long epoch, Collection<Account> accounts) {
+            synchronized (pinned) {
+                pinned.computeIfPresent(epoch, (e, count) -> count == 1 ? null : count - 1);
+                long oldest = pinned.isEmpty() ? Long.MAX_VALUE : pinned.firstKey();
+                if (oldest == oldest_pinned) return;
+                oldest_pinned = oldest;
+            }
+            /* Sweep without holding pinned, snapshots may be pinned meanwhile.
+               oldest_pinned is read under the account monitor, the same way a
+               commit reads it: a snapshot pinned after the read either sees
+               the account's newest state (which is kept) or has published
+               its epoch before any later commit of the account. */
+            for (Account a : accounts) {
+                synchronized (a) {
+                    a.trim(oldest_pinned);
+                }
+            }
+        }
+    }
+
+    /* Consistent, read only view on all accounts at one epoch. */
+    private static class Snapshot implements Iterable<Account.State>, AutoCloseable {
+
+        final long epoch;
+        private final Epochs epochs;
+        private final Collection<Account> accounts;
+
+        Snapshot(Epochs epochs, Collection<Account> accounts) {
+            this.epochs = epochs;
+            this.accounts = accounts;
+            this.epoch = epochs.pin();
+        }
+
+        /* skips accounts which were created after the snapshot's epoch */
+        @Override
+        public Iterator<Account.State> iterator() {
+            return accounts.stream().map(a -> a.stateAt(epoch)).filter(Objects::nonNull).iterator();
+        }
+
+        @Override
+        public void close() {
+            epochs.unpin(epoch, accounts);
+        }
+    }
+
+    /* Append-only transaction journal of one account. Entries have a fixed
+       size and are stored off-heap in segments of SEGMENT_ENTRIES entries;
+       a segment is allocated when the previous one is full. A segment
+       starts with room for INITIAL_SEGMENT_ENTRIES entries and doubles
+       when it is full, so memory grows with the number of entries rather
+       than with the number of accounts.
+
+       Entry layout (ENTRY_SIZE bytes):
+       offset  0: time    (long, milliseconds since epoch)
+       offset  8: amount  (double)
+       offset 16: balance (double, balance after the entry)
+       offset 24: type    (int, see DEPOSIT, WITHDRAW, TRANSFER_IN, TRANSFER_OUT, INTEREST, FEE)
+
+       The sequence number of an entry is its position in the journal
+       plus one, thus it is not stored. Times are kept non-decreasing,
+       which allows to find an entry by time with a binary search.
+
+       Appending is not thread safe, callers must hold the monitor of
+       the account (which is the case for Account.deposit/withdraw.)
+       Readers need no lock: a Reader only sees entries which were
+       completely written when it was created. A grown segment is
+       published with a new segments array, never by replacing an
+       element of an array readers might already use. */
+    private static class Journal {
+
+        static final int DEPOSIT = 1;
+        static final int WITHDRAW = 2;
+        static final int TRANSFER_IN = 3;
+        static final int TRANSFER_OUT = 4;
+        static final int INTEREST = 5;
+        static final int FEE = 6;
+
+        static final int SEGMENT_ENTRIES = 1024;
+        private static final int INITIAL_SEGMENT_ENTRIES = 4;
+        private static final int ENTRY_SIZE = 32;
+
+        /* replaced when it grows, volatile to publish the new array to readers */
+        private volatile ByteBuffer[] segments = new ByteBuffer[1];
+        private long last_time = 0;
+        /* number of entries, volatile to publish appended entries to readers */
+        private volatile long size = 0;
+
+        /* Makes sure the next entry can be appended without allocating. Called
+           before the balance is changed, so that running out of memory leaves
+           the account untouched. */
+        void reserve() {
+            long index = size;
+            int segment = (int) (index / SEGMENT_ENTRIES);
+            int offset = (int) (index % SEGMENT_ENTRIES) * ENTRY_SIZE;
+            ByteBuffer[] segments = this.segments;
+            if (segment == segments.length) {
+                segments = Arrays.copyOf(segments, segments.length * 2);
+            }
+            ByteBuffer b = segments[segment];
+            if (b == null || b.capacity() <= offset) {
+                int entries = b == null ? INITIAL_SEGMENT_ENTRIES : Math.min(SEGMENT_ENTRIES, 2 * b.capacity() / ENTRY_SIZE);
+                ByteBuffer grown = ByteBuffer.allocateDirect(entries * ENTRY_SIZE);
+                if (b != null) {
+                    ByteBuffer entries_written = b.duplicate();
+                    entries_written.clear();
+                    grown.put(entries_written);
+                }
+                if (segments == this.segments) segments = segments.clone();
+                segments[segment] = grown;
+            }
+            // publish segments before size, readers read size first (see reader())
+            if (segments != this.segments) this.segments = segments;
+        }
+
+        void append(int type, double amount, double balance) {
+            reserve();
+            long index = size;
+            // wall clock might go backwards, keep times non-decreasing
+            last_time = Math.max(last_time, System.currentTimeMillis());
+            int offset = (int) (index % SEGMENT_ENTRIES) * ENTRY_SIZE;
+            ByteBuffer b = segments[(int) (index / SEGMENT_ENTRIES)];
+            b.putLong(offset, last_time);
+            b.putDouble(offset + 8, amount);
+            b.putDouble(offset + 16, balance);
+            b.putInt(offset + 24, type);
+            size = index + 1;
+        }
+
+        Reader reader() {
+            // read size first, segments is at least as recent afterwards
+            long size = this.size;
+            return new Reader(segments, size);
+        }
+
+        /* Read only view on the entries [0, size) of a journal. Indices are zero based. */
+        static class Reader {
+            private final ByteBuffer[] segments;
+            private final long size;
+
+            private Reader(ByteBuffer[] segments, long size) {
+                this.segments = segments;
+                this.size = size;
+            }
+
+            long size() {
+                return size;
+            }
+
+            /* index of the entry with the given sequence number, clamped to [0, size] */
+            long indexOfSequence(long sequence) {
+                if (sequence < 1) return 0;
+                return Math.min(size, sequence - 1);
+            }
+
+            /* index of the first entry with time >= the given time, size if there is none */
+            long indexOfTime(long time) {
+                long low = 0;
+                long high = size;
+                while (low < high) {
+                    long mid = (low + high) >>> 1;
+                    if (time(mid) < time) low = mid + 1;
+                    else high = mid;
+                }
+                return low;
+            }
+
+            long time(long index) {
+                return segment(index).getLong(offset(index));
+            }
+
+            double amount(long index) {
+                return segment(index).getDouble(offset(index) + 8);
+            }
+
+            double balance(long index) {
+                return segment(index).getDouble(offset(index) + 16);
+            }
+
+            int type(long index) {
+                return segment(index).getInt(offset(index) + 24);
+            }
+
+            private ByteBuffer segment(long index) {
+                return segments[(int) (index / SEGMENT_ENTRIES)];
+            }
+
+            private static int offset(long index) {
+                return (int) (index % SEGMENT_ENTRIES) * ENTRY_SIZE;
+            }
+        }
+    }
+
+    /* Applies an operation to a range of items with fork/join. Ranges larger
+       than THRESHOLD are split in halves which are processed in parallel,
+       smaller ranges are processed sequentially. The operation returns
+       whether it was applied (true) or the item was skipped (false).
+       A failing operation doesn't propagate, it is recorded in the
+       progress and stops the remaining items of the operation. */
+    private static class BulkTask<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int THRESHOLD = 64;
+
+        private final T[] items;
+        private final int begin;
+        private final int end;
+        private final Predicate<T> operation;
+        private final BulkProgress progress;
+
+        BulkTask(T[] items, int begin, int end, Predicate<T> operation, BulkProgress progress) {
+            this.items = items;
+            this.begin = begin;
+            this.end = end;
+            this.operation = operation;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin > THRESHOLD) {
+                int middle = (begin + end) >>> 1;
+                invokeAll(new BulkTask<>(items, begin, middle, operation, progress),
+                        new BulkTask<>(items, middle, end, operation, progress));
+                return;
+            }
+            int applied = 0;
+            int skipped = 0;
+            try {
+                /* after a failure the remaining items are left alone,
+                   they count neither as applied nor as skipped */
+                for (int i = begin; i < end && !progress.failed(); i++) {
+                    if (operation.test(items[i])) applied++;
+                    else skipped++;
+                }
+            } catch (RuntimeException | Error e) {
+                progress.fail(e);
+            } finally {
+                progress.add(applied, skipped);
+            }
+        }
+    }
+
+    /* Counts processed items of a bulk operation and logs progress and throughput. */
+    private static class BulkProgress {
+
+        /* number of progress log lines per bulk operation */
+        private static final int PROGRESS_STEPS = 10;
+
+        private final String name;
+        /* number of items, grows while a streamed import is read */
+        private final AtomicLong total;
+        /* log progress every step processed items */
+        private final long step;
+        private final long start = System.nanoTime();
+        private final AtomicLong applied = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        /* first failure of an operation, null if none */
+        private volatile Throwable failure;
+        private long millis;
+
+        BulkProgress(String name, int total) {
+            this.name = name;
+            this.total = new AtomicLong(total);
+            this.step = Math.max(1, total / PROGRESS_STEPS);
+        }
+
+        /* for streamed imports, where the total is not known in advance; logs progress every chunk */
+        BulkProgress(String name) {
+            this.name = name;
+            this.total = new AtomicLong();
+            this.step = IMPORT_CHUNK_SIZE;
+        }
+
+        void addTotal(int items) {
+            total.addAndGet(items);
+        }
+
+        void add(int applied, int skipped) {
+            this.applied.addAndGet(applied);
+            this.skipped.addAndGet(skipped);
+            long after = processed.addAndGet(applied + skipped);
+            long before = after - applied - skipped;
+            if (before / step != after / step) {
+                System.out.println(String.format("bulk %s: %d/%d processed", name, after, total.get()));
+            }
+        }
+
+        void fail(Throwable e) {
+            synchronized (this) {
+                if (failure != null) return;
+                failure = e;
+            }
+            System.out.println(String.format("bulk %s failed: %s", name, e));
+        }
+
+        boolean failed() {
+            return failure != null;
+        }
+
+        void finish() {
+            millis = (System.nanoTime() - start) / 1_000_000;
+            double throughput = millis == 0 ? processed.get() : processed.get() * 1000.0 / millis;
+            System.out.println(String.format("bulk %s: %d applied, %d skipped in %d ms (%.0f items/s)",
+                    name, applied.get(), skipped.get(), millis, throughput));
+        }
+
+        /* on failure: internal error followed by the applied and skipped counts */
+        String[] toResponse() {
+            if (failed()) {
+                return new String[]{ERROR_INTERNAL_ERROR[0], ERROR_INTERNAL_ERROR[1], String.valueOf(applied.get()), String.valueOf(skipped.get())};
+            }
+            return new String[]{"0", String.valueOf(applied.get()), String.valueOf(skipped.get()), String.valueOf(millis)};
+        }
+    }
+
+    /* Keeps the encoded Get Account response of the most recently read
+       accounts. Each entry is tagged with the account version it was
+       built from; deposits, withdrawals, transfers and closes increment
+       the version and thereby invalidate the entry. A hit is served
+       without looking at the account data again, i.e. the bytes are
+       written to the socket as they are.
+
+       Hits take no lock, they only mark the entry as referenced. Memory
+       is bounded by the number of entries; when the cache is full, a
+       CLOCK sweep evicts an entry which was not referenced since the
+       hand passed it the last time (approximate LRU.) */
+    private static class ResponseCache {
+
+        private final int capacity;
+        private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+        /* clock hand, guarded by evict_lock */
+        private Iterator<Map.Entry<String, Entry>> hand;
+        private final Object evict_lock = new Object();
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        ResponseCache(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /* returns the cached response or null if there is none for the given account version */
+        byte[] get(String number, long version) {
+            Entry e = entries.get(number);
+            if (e == null || e.version != version) {
+                misses.increment();
+                return null;
+            }
+            if (!e.referenced) e.referenced = true;
+            hits.increment();
+            return e.response;
+        }
+
+        void put(String number, long version, byte[] response) {
+            // never replace a response with an older one
+            entries.merge(number, new Entry(version, response), (old, e) -> old.version > e.version ? old : e);
+            if (entries.size() > capacity) evict();
+        }
+
+        private void evict() {
+            synchronized (evict_lock) {
+                while (entries.size() > capacity) {
+                    if (hand == null || !hand.hasNext()) hand = entries.entrySet().iterator();
+                    if (!hand.hasNext()) return;
+                    Map.Entry<String, Entry> e = hand.next();
+                    if (e.getValue().referenced) {
+                        e.getValue().referenced = false;
+                    } else if (entries.remove(e.getKey(), e.getValue())) {
+                        evictions.increment();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("response cache: size=%d hits=%d misses=%d evictions=%d",
+                    entries.size(), hits.sum(), misses.sum(), evictions.sum());
+        }
+
+        private static class Entry {
+            private final long version;
+            private final byte[] response;
+            /* set on every hit, cleared by the clock hand */
+            private volatile boolean referenced = true;
+
+            Entry(long version, byte[] response) {
+                this.version = version;
+                this.response = response;
+            }
         }
     }
 
@@ -0,0 +1,35 @@
+package bank.socket;
+
+/**
+ * Account data as returned by the server (Get Account / Create Account.)
+ */
+public class AccountInfo {
+
+    private final String number;
+    private final String owner;
+    private final double balance;
+    private final boolean active;
+
+    AccountInfo(String number, String owner, double balance, boolean active) {
+        this.number = number;
+        this.owner = owner;
+        this.balance = balance;
+        this.active = active;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+}
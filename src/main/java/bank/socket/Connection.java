@@ -0,0 +1,143 @@
+package bank.socket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/* One persistent connection to the server. Requests are pipelined, i.e.
+   send() writes the request and returns without waiting for the response.
+   The server answers the requests of a connection in order, therefore a
+   reader thread completes the pending futures in the order the requests
+   were written.
+
+   The pending queue is not guarded by the write lock, otherwise a writer
+   blocked on a full socket buffer could prevent the reader from draining
+   the responses (which the server might be blocked on.)
+
+   Once an I/O error occurred the connection is closed and all pending
+   and future requests fail (see SocketClient for reconnecting.) */
+class Connection implements Closeable {
+
+    private static final char DELIMITER = '\n';
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+    private final Queue<CompletableFuture<String[]>> pending = new ConcurrentLinkedQueue<>();
+    private final Object write_lock = new Object();
+    private volatile boolean closed = false;
+
+    Connection(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new BufferedOutputStream(socket.getOutputStream());
+        in = new BufferedInputStream(socket.getInputStream());
+        Thread reader = new Thread(this::readResponses, "bank-connection-" + host + ":" + port);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    CompletableFuture<String[]> send(String[] request) {
+        CompletableFuture<String[]> response = new CompletableFuture<>();
+        synchronized (write_lock) {
+            if (closed) {
+                response.completeExceptionally(new IOException("connection closed"));
+                return response;
+            }
+            // enqueue before writing, the response might arrive before write() returns
+            pending.add(response);
+            try {
+                for (String line : request) {
+                    writeString(out, line);
+                    out.write(DELIMITER);
+                }
+                out.write(DELIMITER);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        // the reader might have failed the pending requests before this one was enqueued
+        if (closed) fail(new IOException("connection closed"));
+        return response;
+    }
+
+    @Override
+    public void close() {
+        fail(new IOException("connection closed"));
+    }
+
+    private void readResponses() {
+        try {
+            String[] response;
+            while ((response = readResponse(in)) != null) {
+                CompletableFuture<String[]> f = pending.poll();
+                if (f == null) throw new IOException("unexpected response");
+                f.complete(response);
+            }
+            fail(new IOException("connection closed by server"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        CompletableFuture<String[]> f;
+        while ((f = pending.poll()) != null) {
+            f.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Write a string to out.
+     * <p>
+     * Writes each character as 1 byte, the way the server reads it.
+     * </p>
+     *
+     * @param out stream to write to
+     * @param s   string to write
+     * @throws IOException
+     */
+    private static void writeString(OutputStream out, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    /* reads the lines of one response, returns null if the stream ended */
+    private static String[] readResponse(InputStream in) throws IOException {
+        List<String> response = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        int buf;
+        while ((buf = in.read()) != -1) {
+            if (buf != DELIMITER) {
+                sb.append((char) buf);
+            } else if (sb.length() > 0) {
+                response.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                // double line break denotes end of response
+                return response.toArray(new String[0]);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,27 @@
+package bank.socket;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers with an error status code which has no
+ * counterpart in the bank interfaces (e.g. 7 Bad request, 8 Internal error.)
+ * See readme.md#status-codes.
+ */
+public class ProtocolException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public ProtocolException(int status, String message) {
+        super(status + " " + message);
+        this.status = status;
+    }
+
+    /**
+     * @return the status code of the response
+     */
+    public int getStatus() {
+        return status;
+    }
+}
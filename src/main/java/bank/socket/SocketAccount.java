@@ -0,0 +1,62 @@
+package bank.socket;
+
+import bank.Account;
+import bank.InactiveException;
+import bank.OverdrawException;
+
+import java.io.IOException;
+
+/**
+ * {@link Account} implementation on top of {@link SocketClient}. Number and
+ * owner never change and are kept locally, balance and activeness are
+ * requested from the server on every call.
+ */
+public class SocketAccount implements Account {
+
+    private final SocketClient client;
+    private final String number;
+    private final String owner;
+
+    SocketAccount(SocketClient client, String number, String owner) {
+        this.client = client;
+        this.number = number;
+        this.owner = owner;
+    }
+
+    @Override
+    public String getNumber() {
+        return number;
+    }
+
+    @Override
+    public String getOwner() {
+        return owner;
+    }
+
+    @Override
+    public boolean isActive() throws IOException {
+        AccountInfo a = SocketBank.awaitIO(client.getAccount(number));
+        return a != null && a.isActive();
+    }
+
+    @Override
+    public void deposit(double amount) throws IOException, IllegalArgumentException, InactiveException {
+        try {
+            SocketClient.await(client.deposit(number, amount));
+        } catch (OverdrawException e) {
+            throw new IOException("unexpected response", e);
+        }
+    }
+
+    @Override
+    public void withdraw(double amount)
+            throws IOException, IllegalArgumentException, OverdrawException, InactiveException {
+        SocketClient.await(client.withdraw(number, amount));
+    }
+
+    @Override
+    public double getBalance() throws IOException {
+        AccountInfo a = SocketBank.awaitIO(client.getAccount(number));
+        return a == null ? 0 : a.getBalance();
+    }
+}
@@ -0,0 +1,61 @@
+package bank.socket;
+
+import bank.Account;
+import bank.Bank;
+import bank.InactiveException;
+import bank.OverdrawException;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * {@link Bank} implementation on top of {@link SocketClient}. The methods
+ * block until the response has arrived; concurrent callers share the
+ * client's connections and their requests are pipelined.
+ */
+public class SocketBank implements Bank {
+
+    private final SocketClient client;
+
+    public SocketBank(SocketClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public String createAccount(String owner) throws IOException {
+        AccountInfo a = awaitIO(client.createAccount(owner));
+        return a == null ? null : a.getNumber();
+    }
+
+    @Override
+    public boolean closeAccount(String number) throws IOException {
+        return awaitIO(client.closeAccount(number));
+    }
+
+    @Override
+    public Set<String> getAccountNumbers() throws IOException {
+        return awaitIO(client.getAccountNumbers());
+    }
+
+    @Override
+    public Account getAccount(String number) throws IOException {
+        AccountInfo a = awaitIO(client.getAccount(number));
+        return a == null ? null : new SocketAccount(client, a.getNumber(), a.getOwner());
+    }
+
+    @Override
+    public void transfer(Account a, Account b, double amount)
+            throws IOException, IllegalArgumentException, OverdrawException, InactiveException {
+        SocketClient.await(client.transfer(a.getNumber(), b.getNumber(), amount));
+    }
+
+    /* for actions which don't fail with bank exceptions */
+    static <T> T awaitIO(Future<T> f) throws IOException {
+        try {
+            return SocketClient.await(f);
+        } catch (InactiveException | OverdrawException e) {
+            throw new IOException("unexpected response", e);
+        }
+    }
+}
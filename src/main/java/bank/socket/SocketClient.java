@@ -0,0 +1,292 @@
+package bank.socket;
+
+import bank.InactiveException;
+import bank.OverdrawException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Asynchronous client for the bank server protocol (see readme.md#protocol).
+ * <p>
+ * Keeps a pool of persistent connections. Requests are distributed round
+ * robin over the connections and pipelined, i.e. many requests may be in
+ * flight on one connection. Connections which failed are replaced when
+ * they are used the next time.
+ * </p>
+ * <p>
+ * Every action returns a future. Error responses complete the future
+ * exceptionally with {@link InactiveException}, {@link OverdrawException},
+ * {@link IllegalArgumentException} or {@link ProtocolException}; I/O errors
+ * complete it with an {@link IOException}.
+ * </p>
+ */
+public class SocketClient implements Closeable {
+
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    /* status codes according to protocol specification (see readme.md#status-codes) */
+    private static final int STATUS_OK = 0;
+    private static final int STATUS_ACCOUNT_DOES_NOT_EXIST = 1;
+    private static final int STATUS_ACCOUNT_COULD_NOT_BE_CREATED = 2;
+    private static final int STATUS_ACCOUNT_COULD_NOT_BE_CLOSED = 3;
+    private static final int STATUS_INACTIVE_ACCOUNT = 4;
+    private static final int STATUS_ACCOUNT_OVERDRAW = 5;
+    private static final int STATUS_ILLEGAL_ARGUMENT = 6;
+
+    private final String host;
+    private final int port;
+    private final AtomicReferenceArray<Connection> connections;
+    private final AtomicInteger next = new AtomicInteger();
+    /* once closed, no connections are opened anymore */
+    private volatile boolean closed = false;
+
+    public SocketClient(String host, int port) throws IOException {
+        this(host, port, DEFAULT_POOL_SIZE);
+    }
+
+    public SocketClient(String host, int port, int poolSize) throws IOException {
+        if (poolSize < 1) throw new IllegalArgumentException("pool size must be positive");
+        this.host = host;
+        this.port = port;
+        this.connections = new AtomicReferenceArray<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            connections.set(i, new Connection(host, port));
+        }
+    }
+
+    /* ------------------
+       ACTIONS
+       ------------------ */
+
+    /**
+     * Get Account Numbers (1)
+     *
+     * @return numbers of all active accounts
+     */
+    public CompletableFuture<Set<String>> getAccountNumbers() {
+        return send("1").thenApply(r -> {
+            checkStatus(r);
+            return new HashSet<>(Arrays.asList(r).subList(1, r.length));
+        });
+    }
+
+    /**
+     * Get Account (2)
+     *
+     * @param number account number
+     * @return the account or null if it does not exist
+     */
+    public CompletableFuture<AccountInfo> getAccount(String number) {
+        // can't be an account number, don't send it
+        if (!isValidArgument(number)) return CompletableFuture.completedFuture(null);
+        return send("2", number).thenApply(r -> {
+            if (status(r) == STATUS_ACCOUNT_DOES_NOT_EXIST) return null;
+            checkStatus(r);
+            return accountInfo(r);
+        });
+    }
+
+    /**
+     * Create Account (3)
+     *
+     * @param owner name of the owner
+     * @return the created account or null if it could not be created
+     */
+    public CompletableFuture<AccountInfo> createAccount(String owner) {
+        // can't be sent, thus no account can be created for this owner
+        if (!isValidArgument(owner)) return CompletableFuture.completedFuture(null);
+        return send("3", owner).thenApply(r -> {
+            if (status(r) == STATUS_ACCOUNT_COULD_NOT_BE_CREATED) return null;
+            checkStatus(r);
+            return accountInfo(r);
+        });
+    }
+
+    /**
+     * Close Account (4)
+     *
+     * @param number account number
+     * @return whether the account could be closed
+     */
+    public CompletableFuture<Boolean> closeAccount(String number) {
+        // can't be an account number, don't send it
+        if (!isValidArgument(number)) return CompletableFuture.completedFuture(false);
+        return send("4", number).thenApply(r -> {
+            int status = status(r);
+            if (status == STATUS_ACCOUNT_DOES_NOT_EXIST || status == STATUS_ACCOUNT_COULD_NOT_BE_CLOSED) return false;
+            checkStatus(r);
+            return true;
+        });
+    }
+
+    /**
+     * Transfer (5)
+     *
+     * @param from   number of the account to withdraw from
+     * @param to     number of the account to deposit to
+     * @param amount amount to transfer
+     * @return the new balances of both accounts, {from, to}
+     */
+    public CompletableFuture<double[]> transfer(String from, String to, double amount) {
+        return send("5", from, to, String.valueOf(amount)).thenApply(r -> {
+            checkStatus(r);
+            return new double[]{Double.parseDouble(r[1]), Double.parseDouble(r[2])};
+        });
+    }
+
+    /**
+     * Deposit (6)
+     *
+     * @param number account number
+     * @param amount amount to deposit
+     * @return the new balance
+     */
+    public CompletableFuture<Double> deposit(String number, double amount) {
+        return send("6", number, String.valueOf(amount)).thenApply(r -> {
+            checkStatus(r);
+            return Double.parseDouble(r[1]);
+        });
+    }
+
+    /**
+     * Withdraw (7)
+     *
+     * @param number account number
+     * @param amount amount to withdraw
+     * @return the new balance
+     */
+    public CompletableFuture<Double> withdraw(String number, double amount) {
+        return send("7", number, String.valueOf(amount)).thenApply(r -> {
+            checkStatus(r);
+            return Double.parseDouble(r[1]);
+        });
+    }
+
+    /**
+     * Sends a raw request and returns the raw response lines, status code first.
+     * The future fails with {@link IllegalArgumentException} if a line is empty
+     * or contains a line break, such a request would be read as several requests.
+     *
+     * @param request action followed by its arguments
+     * @return the response
+     */
+    public CompletableFuture<String[]> send(String... request) {
+        for (String line : request) {
+            if (!isValidArgument(line)) {
+                CompletableFuture<String[]> f = new CompletableFuture<>();
+                f.completeExceptionally(new IllegalArgumentException("request lines must neither be empty nor contain line breaks"));
+                return f;
+            }
+        }
+        Connection c;
+        try {
+            if (closed) throw new IOException("client closed");
+            c = connection();
+        } catch (IOException e) {
+            CompletableFuture<String[]> f = new CompletableFuture<>();
+            f.completeExceptionally(e);
+            return f;
+        }
+        return c.send(request);
+    }
+
+    /**
+     * Closes all connections. Requests sent afterwards fail with an {@link IOException}.
+     */
+    @Override
+    public void close() {
+        synchronized (connections) {
+            closed = true;
+        }
+        for (int i = 0; i < connections.length(); i++) {
+            connections.get(i).close();
+        }
+    }
+
+    /**
+     * Waits for a future and unwraps the exception it was completed with.
+     *
+     * @param f future to wait for
+     * @return the result of f
+     * @throws IOException       if a communication problem occurred
+     * @throws InactiveException if the account is not active
+     * @throws OverdrawException if the account would have been overdrawn
+     */
+    public static <T> T await(Future<T> f) throws IOException, InactiveException, OverdrawException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof InactiveException) throw (InactiveException) cause;
+            if (cause instanceof OverdrawException) throw (OverdrawException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /* the protocol delimits lines with \n and requests with an empty line */
+    private static boolean isValidArgument(String argument) {
+        return argument != null && !argument.isEmpty() && argument.indexOf('\n') < 0;
+    }
+
+    /* round robin, replaces a failed connection with a new one */
+    private Connection connection() throws IOException {
+        int i = Math.floorMod(next.getAndIncrement(), connections.length());
+        Connection c = connections.get(i);
+        if (!c.isClosed()) return c;
+        synchronized (connections) {
+            if (closed) throw new IOException("client closed");
+            c = connections.get(i);
+            if (c.isClosed()) {
+                c = new Connection(host, port);
+                connections.set(i, c);
+            }
+            return c;
+        }
+    }
+
+    private static int status(String[] response) {
+        try {
+            return Integer.parseInt(response[0]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new CompletionException(new ProtocolException(-1, "malformed response"));
+        }
+    }
+
+    /* completes the dependent future exceptionally (with the cause of the thrown
+       CompletionException) if the response is an error */
+    private static void checkStatus(String[] response) {
+        int status = status(response);
+        if (status == STATUS_OK) return;
+        String message = response.length > 1 ? response[1] : "";
+        switch (status) {
+            case STATUS_INACTIVE_ACCOUNT:
+                throw new CompletionException(new InactiveException(message));
+            case STATUS_ACCOUNT_OVERDRAW:
+                throw new CompletionException(new OverdrawException(message));
+            case STATUS_ILLEGAL_ARGUMENT:
+                throw new IllegalArgumentException(message);
+            default:
+                throw new CompletionException(new ProtocolException(status, message));
+        }
+    }
+
+    private static AccountInfo accountInfo(String[] r) {
+        return new AccountInfo(r[1], r[2], Double.parseDouble(r[3]), !r[4].equals("0"));
+    }
+}
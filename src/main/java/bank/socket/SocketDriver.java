@@ -0,0 +1,36 @@
+package bank.socket;
+
+import bank.Bank;
+import bank.BankDriver;
+
+import java.io.IOException;
+
+/**
+ * {@link BankDriver} for the socket server, e.g. to be used with
+ * {@code bank.gui.DriverFactory}: {@code bank.socket.SocketDriver <host> <port> [pool_size]}
+ */
+public class SocketDriver implements BankDriver {
+
+    private SocketClient client;
+    private SocketBank bank;
+
+    @Override
+    public void connect(String[] args) throws IOException {
+        if (args.length < 2) throw new IllegalArgumentException("usage: <host> <port> [pool_size]");
+        int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : SocketClient.DEFAULT_POOL_SIZE;
+        client = new SocketClient(args[0], Integer.parseInt(args[1]), poolSize);
+        bank = new SocketBank(client);
+    }
+
+    @Override
+    public void disconnect() {
+        if (client != null) client.close();
+        client = null;
+        bank = null;
+    }
+
+    @Override
+    public Bank getBank() {
+        return bank;
+    }
+}